@@ -0,0 +1,138 @@
+package OOP.Solution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free feed of TunesEvents, backed by a ring buffer.
+ * The single writer never waits for subscribers: once the buffer is full, each new event overwrites the oldest one.
+ * Each subscriber reads at its own pace through its own cursor, in batches, from any thread.
+ * A subscriber that falls more than a full buffer behind skips the events that were overwritten,
+ * and counts them in getMissed().
+ */
+public class ChangeFeed {
+    private final AtomicReferenceArray<TunesEvent> buffer; // Ring buffer, indexed by sequence & mask
+    private final int mask;
+    private final AtomicLong published; // Number of events published so far
+
+    /**
+     * Creates an empty feed.
+     *
+     * @param capacity Number of events kept for slow subscribers, rounded up to a power of two
+     */
+    public ChangeFeed(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity for ChangeFeed");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.published = new AtomicLong();
+    }
+
+    /**
+     * Publishes an event. Must only be called by the feed's single writer.
+     *
+     * @param type     Event type
+     * @param firstID  First ID of the event
+     * @param secondID Second ID of the event, or -1
+     * @param rate     Rating of a SONG_RATED event, or -1
+     */
+    void publish(TunesEvent.Type type, int firstID, int secondID, int rate) {
+        long sequence = published.get();
+        buffer.set((int) (sequence & mask), new TunesEvent(sequence, type, firstID, secondID, rate));
+        published.set(sequence + 1); // Makes the event visible to subscribers
+    }
+
+    /**
+     * Returns the number of events published so far.
+     *
+     * @return the sequence the next event will get
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * Subscribes to events published from now on.
+     *
+     * @return a new subscription
+     */
+    public Subscription subscribe() {
+        return new Subscription(published.get());
+    }
+
+    /**
+     * A subscriber's cursor into the feed. A subscription is meant to be polled by one thread at a time.
+     */
+    public class Subscription {
+        private long cursor; // Sequence of the next event to read
+        private long missed; // Number of events overwritten before they were read
+
+        private Subscription(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Returns the next batch of events, oldest first, and advances the cursor past them.
+         *
+         * @param maxBatch Maximum number of events to return
+         * @return the events, or an empty list if there are no new events
+         */
+        public List<TunesEvent> poll(int maxBatch) {
+            if (maxBatch <= 0) {
+                throw new IllegalArgumentException("Invalid batch size");
+            }
+            List<TunesEvent> batch = new ArrayList<>();
+            long end = published.get();
+            while (batch.size() < maxBatch && cursor < end) {
+                skipOverwritten(end);
+                TunesEvent event = buffer.get((int) (cursor & mask));
+                if (event.getSequence() != cursor) {
+                    // The writer lapped us while reading; retry from the oldest event it left.
+                    skipOverwritten(event.getSequence() + 1);
+                    continue;
+                }
+                batch.add(event);
+                cursor++;
+            }
+            return batch;
+        }
+
+        /**
+         * Moves the cursor to the oldest event still in the buffer, if it fell behind it.
+         *
+         * @param end Number of events written to the buffer
+         */
+        private void skipOverwritten(long end) {
+            long oldest = end - buffer.length();
+            if (cursor < oldest) {
+                missed += oldest - cursor;
+                cursor = oldest;
+            }
+        }
+
+        /**
+         * Returns the number of events published but not yet polled, including any that will be missed.
+         *
+         * @return the subscriber's lag
+         */
+        public long getLag() {
+            return published.get() - cursor;
+        }
+
+        /**
+         * Returns the number of events that were overwritten before this subscriber polled them.
+         *
+         * @return the number of missed events
+         */
+        public long getMissed() {
+            return missed;
+        }
+    }
+}
@@ -13,10 +13,54 @@ public class TechnionTunesImpl implements TechnionTunes {
 
     private final Map<Integer, User> users; // Map to store users by ID
     private final Map<Integer, Song> songs; // Map to store songs by ID
+    private final int feedCapacity; // Capacity of the change feed, once it is created
+    private volatile ChangeFeed changeFeed; // Feed of successful changes, or null until someone asks for it
 
     public TechnionTunesImpl() {
+        this(1 << 10);
+    }
+
+    /**
+     * Creates an empty system whose change feed keeps the given number of events for slow subscribers.
+     *
+     * @param feedCapacity Capacity of the change feed
+     */
+    public TechnionTunesImpl(int feedCapacity) {
+        if (feedCapacity <= 0 || feedCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity for ChangeFeed");
+        }
         this.users = new HashMap<>();
         this.songs = new HashMap<>();
+        this.feedCapacity = feedCapacity;
+    }
+
+    /**
+     * Returns the feed of changes made to the system. Every successful addUser, addSong, rateSong and
+     * makeFriends call publishes one event, without waiting for subscribers.
+     * The feed is created on the first call, so a system nobody watches spends nothing on it.
+     *
+     * @return the change feed
+     */
+    public synchronized ChangeFeed getChangeFeed() {
+        if (changeFeed == null) {
+            changeFeed = new ChangeFeed(feedCapacity);
+        }
+        return changeFeed;
+    }
+
+    /**
+     * Publishes a change to the feed, if it was created.
+     *
+     * @param type     Event type
+     * @param firstID  First ID of the event
+     * @param secondID Second ID of the event, or -1
+     * @param rate     Rating of a SONG_RATED event, or -1
+     */
+    private void publish(TunesEvent.Type type, int firstID, int secondID, int rate) {
+        ChangeFeed feed = changeFeed;
+        if (feed != null) {
+            feed.publish(type, firstID, secondID, rate);
+        }
     }
 
     /**
@@ -37,6 +81,7 @@ public class TechnionTunesImpl implements TechnionTunes {
             throw new IllegalArgumentException("Invalid user details");
         }
         users.put(userID, new UserImpl(userID, userName, userAge));
+        publish(TunesEvent.Type.USER_ADDED, userID, -1, -1);
     }
 
     /**
@@ -70,6 +115,7 @@ public class TechnionTunesImpl implements TechnionTunes {
         User user2 = getUser(id2); // Throws UserDoesntExist if user2 doesn't exist
         user1.AddFriend(user2);
         user2.AddFriend(user1); // Friendship is bidirectional
+        publish(TunesEvent.Type.FRIENDS_MADE, id1, id2, -1);
     }
 
     /**
@@ -90,6 +136,7 @@ public class TechnionTunesImpl implements TechnionTunes {
             throw new IllegalArgumentException("Invalid song details");
         }
         songs.put(songID, new SongImpl(songID, songName, length, singerName));
+        publish(TunesEvent.Type.SONG_ADDED, songID, -1, -1);
     }
 
     /**
@@ -125,6 +172,7 @@ public class TechnionTunesImpl implements TechnionTunes {
         Song song = getSong(songId);
         user.rateSong(song, rate);
         song.rateSong(user, rate);
+        publish(TunesEvent.Type.SONG_RATED, userId, songId, rate);
     }
 
     /**
@@ -0,0 +1,59 @@
+package OOP.Solution;
+
+/**
+ * An immutable change published to a ChangeFeed by TechnionTunesImpl.
+ * The meaning of the IDs depends on the event type:
+ * USER_ADDED and SONG_ADDED carry the new ID in firstID, SONG_RATED carries the user ID, the song ID and the rate,
+ * and FRIENDS_MADE carries the IDs of both users.
+ */
+public class TunesEvent {
+
+    /**
+     * The kinds of changes published to the feed.
+     */
+    public enum Type {
+        USER_ADDED, SONG_ADDED, SONG_RATED, FRIENDS_MADE
+    }
+
+    private final long sequence; // Position of the event in the feed, starting at 0
+    private final Type type;
+    private final int firstID;
+    private final int secondID; // -1 if the event has a single ID
+    private final int rate; // -1 unless the event is SONG_RATED
+
+    public TunesEvent(long sequence, Type type, int firstID, int secondID, int rate) {
+        if (sequence < 0 || type == null) {
+            throw new IllegalArgumentException("Invalid parameters for TunesEvent constructor");
+        }
+        this.sequence = sequence;
+        this.type = type;
+        this.firstID = firstID;
+        this.secondID = secondID;
+        this.rate = rate;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getFirstID() {
+        return firstID;
+    }
+
+    public int getSecondID() {
+        return secondID;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    @Override
+    public String toString() {
+        return "TunesEvent{" + sequence + ", " + type + ", " + firstID + ", " + secondID + ", " + rate + "}";
+    }
+}
@@ -0,0 +1,206 @@
+package solution;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A step method bound to the sentence pattern of its Given, When or Then annotation.
+ * The pattern and the converters for the method's parameters are resolved once, when the method is bound,
+ * so matching a sentence and converting its arguments needs no further reflection.
+ * <p>
+ * A method with a single parameter receives the last word of the sentence, and the words before it must match
+ * the annotation exactly. A method with several parameters receives one word for each annotation word starting
+ * with '&amp;', in order, and every other word must match exactly. The number of such words is checked when the
+ * method is bound: a method whose parameter count differs never matches, so later steps are still tried.
+ */
+final class StepBinding {
+
+    // Converters from a sentence word to each supported parameter type.
+    private static final Map<Class<?>, Function<String, Object>> CONVERTERS = new HashMap<>();
+
+    static {
+        CONVERTERS.put(String.class, word -> word);
+        CONVERTERS.put(int.class, Integer::valueOf);
+        CONVERTERS.put(Integer.class, Integer::valueOf);
+        CONVERTERS.put(long.class, Long::valueOf);
+        CONVERTERS.put(Long.class, Long::valueOf);
+        CONVERTERS.put(short.class, Short::valueOf);
+        CONVERTERS.put(Short.class, Short::valueOf);
+        CONVERTERS.put(byte.class, Byte::valueOf);
+        CONVERTERS.put(Byte.class, Byte::valueOf);
+        CONVERTERS.put(double.class, Double::valueOf);
+        CONVERTERS.put(Double.class, Double::valueOf);
+        CONVERTERS.put(float.class, Float::valueOf);
+        CONVERTERS.put(Float.class, Float::valueOf);
+        CONVERTERS.put(boolean.class, Boolean::valueOf);
+        CONVERTERS.put(Boolean.class, Boolean::valueOf);
+        CONVERTERS.put(char.class, StepBinding::toCharacter);
+        CONVERTERS.put(Character.class, StepBinding::toCharacter);
+    }
+
+    private final Method method; // The bound step method.
+    private final String value; // The annotation value the method is bound to.
+    private final String[] words; // The words of the pattern, with null for each placeholder.
+    private final Function<String, Object>[] converters; // A converter for each parameter of the method.
+    private final String prefix; // The words before a single trailing placeholder, or null for other patterns.
+    private final int placeholders; // Number of placeholders in the pattern.
+    private final boolean usable; // Whether the pattern supplies an argument for every parameter.
+
+    /**
+     * Binds a step method to the value of its annotation.
+     *
+     * @param method The step method.
+     * @param value  The value of the method's Given, When or Then annotation.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    StepBinding(Method method, String value) {
+        method.setAccessible(true);
+        this.method = method;
+        this.value = value;
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        this.converters = new Function[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            this.converters[i] = converterFor(parameterTypes[i]);
+        }
+
+        this.words = value.split(" ", -1);
+        if (parameterTypes.length > 1) {
+            for (int i = 0; i < words.length; i++) {
+                if (words[i].startsWith("&")) words[i] = null;
+            }
+            this.prefix = null;
+        } else {
+            int last = value.lastIndexOf(' ');
+            this.prefix = last < 0 ? null : value.substring(0, last);
+        }
+        words[words.length - 1] = null; // The last word is always a placeholder.
+
+        int count = 0;
+        for (String word : words) {
+            if (word == null) count++;
+        }
+        this.placeholders = count;
+        this.usable = converters.length <= 1 || converters.length == placeholders;
+    }
+
+    /**
+     * Returns the converter for a parameter type. A type that can hold a String, such as Object or CharSequence,
+     * receives the word itself. Other unsupported types get a converter that rejects every word,
+     * so the method can still be bound and only fails if a story uses it.
+     *
+     * @param type The parameter type.
+     * @return The converter for the type.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Function<String, Object> converterFor(Class<?> type) {
+        if (type.isEnum()) return word -> Enum.valueOf((Class<? extends Enum>) type, word);
+
+        Function<String, Object> converter = CONVERTERS.get(type);
+        if (converter != null) return converter;
+        if (type.isAssignableFrom(String.class)) return CONVERTERS.get(String.class);
+        return word -> {
+            throw new IllegalArgumentException("Unsupported step parameter type: " + type.getName());
+        };
+    }
+
+    /**
+     * Converts a single-character word to a Character.
+     *
+     * @param word The word to convert.
+     * @return The word's only character.
+     */
+    private static Character toCharacter(String word) {
+        if (word.length() != 1) throw new IllegalArgumentException("Not a single character: " + word);
+        return word.charAt(0);
+    }
+
+    /**
+     * Returns the bound step method.
+     *
+     * @return The step method.
+     */
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the annotation value the method is bound to.
+     *
+     * @return The annotation value.
+     */
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the words before the pattern's placeholder, for patterns whose only placeholder is the last word.
+     *
+     * @return The words before the placeholder, or null if the pattern has other placeholders.
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Checks whether a sentence matches the pattern.
+     *
+     * @param body The sentence, without its Given, When or Then keyword.
+     * @return True if the sentence matches, false otherwise.
+     */
+    boolean matches(String body) {
+        return collect(body, null);
+    }
+
+    /**
+     * Matches a sentence against the pattern and converts its placeholder words to the method's parameter types.
+     *
+     * @param body The sentence, without its Given, When or Then keyword.
+     * @return The converted arguments, or null if the sentence does not match.
+     * @throws RuntimeException If the sentence matches but a word cannot be converted.
+     */
+    Object[] arguments(String body) {
+        if (!collect(body, null)) return null; // Allocate only once the sentence is known to match.
+        String[] captured = new String[placeholders];
+        collect(body, captured);
+
+        Object[] args = new Object[converters.length];
+        for (int i = 0; i < converters.length; i++) {
+            args[i] = converters[i].apply(captured[i]);
+        }
+        return args;
+    }
+
+    /**
+     * Walks a sentence word by word against the pattern, optionally collecting the placeholder words.
+     *
+     * @param body     The sentence, without its Given, When or Then keyword.
+     * @param captured Where to store the placeholder words, or null to only check for a match.
+     * @return True if the sentence matches, false otherwise.
+     */
+    private boolean collect(String body, String[] captured) {
+        if (!usable) return false;
+
+        int pos = 0;
+        int placeholder = 0;
+
+        for (int i = 0; i < words.length; i++) {
+            boolean last = i == words.length - 1;
+            int end = body.indexOf(' ', pos);
+            if (last ? end >= 0 : end < 0) return false;
+            if (last) end = body.length();
+
+            String word = words[i];
+            if (word == null) {
+                if (captured != null) captured[placeholder] = body.substring(pos, end);
+                placeholder++;
+            } else if (end - pos != word.length() || !body.startsWith(word, pos)) {
+                return false;
+            }
+            pos = end + 1;
+        }
+        return true;
+    }
+}
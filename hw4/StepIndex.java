@@ -0,0 +1,69 @@
+package solution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered list of bound steps that finds the first step matching a sentence without trying every step.
+ * Steps whose only placeholder is the last word are looked up by the words before it. Only the steps with other
+ * patterns are tried one by one, and only those that come before the first step with a matching prefix.
+ */
+final class StepIndex {
+
+    private final List<StepBinding> steps = new ArrayList<>(); // Every indexed step, in order.
+    private final Map<String, Integer> byPrefix = new HashMap<>(); // First position of each single-placeholder pattern.
+    private final List<Integer> patterned = new ArrayList<>(); // Positions of all other patterns, ascending.
+
+    /**
+     * Adds a step after the steps already indexed.
+     *
+     * @param step The step to add.
+     */
+    void add(StepBinding step) {
+        int position = steps.size();
+        steps.add(step);
+
+        if (step.getPrefix() == null) patterned.add(position);
+        else byPrefix.putIfAbsent(step.getPrefix(), position);
+    }
+
+    /**
+     * Returns the indexed steps.
+     *
+     * @return The steps, in order.
+     */
+    List<StepBinding> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Finds the position of the first indexed step matching a sentence.
+     *
+     * @param body The sentence, without its Given, When or Then keyword.
+     * @return The position of the matching step, or -1 if there is none.
+     */
+    int indexOf(String body) {
+        int last = body.lastIndexOf(' ');
+        Integer first = last < 0 ? null : byPrefix.get(body.substring(0, last));
+        int limit = first == null ? steps.size() : first;
+
+        for (int position : patterned) {
+            if (position >= limit) break;
+            if (steps.get(position).matches(body)) return position;
+        }
+        return first == null ? -1 : first;
+    }
+
+    /**
+     * Finds the first indexed step matching a sentence.
+     *
+     * @param body The sentence, without its Given, When or Then keyword.
+     * @return The matching step, or null if there is none.
+     */
+    StepBinding find(String body) {
+        int position = indexOf(body);
+        return position < 0 ? null : steps.get(position);
+    }
+}
@@ -0,0 +1,26 @@
+package solution;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event recorded by StoryProfiler for each phase of a story run.
+ */
+@Name("solution.StoryPhase")
+@Label("Story Phase")
+@Category("Story Tester")
+@Description("A phase of running a story: step lookup, instance creation, backup, restore or a step method.")
+class StoryPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase; // The phase, as named by StoryProfiler.Phase.
+
+    @Label("Fixture")
+    Class<?> fixture; // The test class the story runs against.
+
+    @Label("Sentence")
+    String sentence; // The sentence being run, or null for phases outside a sentence.
+}
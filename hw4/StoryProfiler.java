@@ -0,0 +1,247 @@
+package solution;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects timing and allocation statistics for story runs. Attach it with StoryTesterImpl.setProfiler.
+ * Every phase of a run is timed, counted in a histogram, and recorded as a StoryPhaseEvent for JFR.
+ * The phases are step lookup, test instance creation, backup, restore and the step methods themselves.
+ * Statistics are kept per phase, per step and per fixture, and report() ranks the slowest steps and fixtures.
+ * A step's statistics cover only the time spent in its method, one measurement per sentence it runs.
+ * A fixture's statistics count each sentence once, covering all of its phases; the first sentence of a story
+ * also covers creating the test instance.
+ * A profiler is meant to be used by one tester on one thread at a time.
+ */
+public class StoryProfiler {
+
+    /**
+     * The phases of a story run that are measured.
+     */
+    public enum Phase {
+        LOOKUP, CREATE_INSTANCE, BACKUP, RESTORE, STEP
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+
+    private final Map<Phase, Timing> phases = new EnumMap<>(Phase.class); // Statistics per phase.
+    private final Map<String, Timing> steps = new HashMap<>(); // Statistics per step, keyed by its annotation.
+    private final Map<Class<?>, Timing> fixtures = new HashMap<>(); // Statistics per test class.
+
+    private Phase phase; // The phase being measured, or null between phases.
+    private long startNanos; // When the current phase started.
+    private long startBytes; // Bytes the thread had allocated when the current phase started.
+    private StoryPhaseEvent event; // The JFR event of the current phase.
+    private long sentenceNanos; // Time spent in the phases of the current sentence so far.
+    private long sentenceBytes; // Bytes allocated in the phases of the current sentence so far.
+    private boolean sentenceMeasured; // Whether any phase was measured since the last sentence ended.
+
+    /**
+     * Timing and allocation statistics, with a histogram of durations in power-of-two nanosecond buckets.
+     */
+    private static final class Timing {
+        private final String name; // What the statistics are for.
+        private final long[] buckets = new long[64]; // Bucket i counts durations below 2^i nanoseconds.
+        private long count; // Number of measurements.
+        private long totalNanos; // Sum of all durations.
+        private long maxNanos; // Longest duration.
+        private long totalBytes; // Sum of all allocations.
+
+        /**
+         * Creates empty statistics.
+         *
+         * @param name What the statistics are for.
+         */
+        Timing(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Adds a measurement.
+         *
+         * @param nanos The duration, in nanoseconds.
+         * @param bytes The bytes allocated meanwhile.
+         */
+        void add(long nanos, long bytes) {
+            buckets[64 - Long.numberOfLeadingZeros(nanos)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            totalBytes += bytes;
+        }
+
+        /**
+         * Returns an upper bound on the given percentile of the durations.
+         *
+         * @param percentile The percentile, between 0 and 100.
+         * @return The upper bound of the histogram bucket holding the percentile, in nanoseconds.
+         */
+        long percentileNanos(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) return Math.min(i == 63 ? Long.MAX_VALUE : (1L << i) - 1, maxNanos);
+            }
+            return maxNanos;
+        }
+    }
+
+    /**
+     * Starts measuring a phase.
+     *
+     * @param phase The phase that starts.
+     */
+    void begin(Phase phase) {
+        this.phase = phase;
+        this.event = new StoryPhaseEvent();
+        this.event.begin();
+        this.startBytes = allocatedBytes();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Finishes measuring the current phase and records it.
+     *
+     * @param fixture  The test class the story runs against.
+     * @param sentence The sentence being run, or null for phases outside a sentence.
+     * @param step     The annotation value of the step the sentence resolved to, or null if there is none.
+     *                 Only the STEP phase is recorded under the step.
+     */
+    void end(Class<?> fixture, String sentence, String step) {
+        if (phase == null) return;
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes() - startBytes;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.name();
+            event.fixture = fixture;
+            event.sentence = sentence;
+            event.commit();
+        }
+
+        phases.computeIfAbsent(phase, p -> new Timing(p.name())).add(nanos, bytes);
+        sentenceNanos += nanos;
+        sentenceBytes += bytes;
+        sentenceMeasured = true;
+        if (phase == Phase.STEP && step != null) {
+            String keyword = sentence.substring(0, sentence.indexOf(' ') + 1);
+            steps.computeIfAbsent(keyword + step + " (" + fixture.getSimpleName() + ")", Timing::new).add(nanos, bytes);
+        }
+        this.phase = null;
+        this.event = null;
+    }
+
+    /**
+     * Finishes a sentence and records the time spent in its phases as one measurement of the fixture.
+     *
+     * @param fixture The test class the story runs against.
+     */
+    void endSentence(Class<?> fixture) {
+        if (!sentenceMeasured) return;
+        fixtures.computeIfAbsent(fixture, c -> new Timing(c.getName())).add(sentenceNanos, sentenceBytes);
+        this.sentenceNanos = 0;
+        this.sentenceBytes = 0;
+        this.sentenceMeasured = false;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or 0 if the JVM cannot tell.
+     *
+     * @return The allocated bytes.
+     */
+    private static long allocatedBytes() {
+        return ALLOCATION_SUPPORTED ? ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Discards all collected statistics.
+     */
+    public void reset() {
+        phases.clear();
+        steps.clear();
+        fixtures.clear();
+        this.phase = null;
+        this.event = null;
+        this.sentenceNanos = 0;
+        this.sentenceBytes = 0;
+        this.sentenceMeasured = false;
+    }
+
+    /**
+     * Returns the total time spent in a phase so far.
+     *
+     * @param phase The phase.
+     * @return The total time in nanoseconds.
+     */
+    public long getTotalNanos(Phase phase) {
+        Timing timing = phases.get(phase);
+        return timing == null ? 0 : timing.totalNanos;
+    }
+
+    /**
+     * Returns a report of the collected statistics: a summary of each phase, followed by the slowest steps
+     * and the slowest fixtures, ranked by total time.
+     *
+     * @param top The number of steps and fixtures to list.
+     * @return The report, one line per entry.
+     */
+    public String report(int top) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %8s %10s %10s %10s %10s %10s %12s%n",
+                "", "count", "total ms", "mean us", "p50 us", "p99 us", "max us", "alloc KB"));
+
+        sb.append("Phases:").append(System.lineSeparator());
+        for (Timing timing : phases.values()) appendLine(sb, timing);
+
+        sb.append("Slowest steps:").append(System.lineSeparator());
+        for (Timing timing : slowest(steps.values(), top)) appendLine(sb, timing);
+
+        sb.append("Slowest fixtures:").append(System.lineSeparator());
+        for (Timing timing : slowest(fixtures.values(), top)) appendLine(sb, timing);
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the statistics with the highest total time, slowest first.
+     *
+     * @param timings The statistics to rank.
+     * @param top     The number of statistics to return.
+     * @return The slowest statistics.
+     */
+    private static List<Timing> slowest(Iterable<Timing> timings, int top) {
+        List<Timing> ranked = new ArrayList<>();
+        timings.forEach(ranked::add);
+        ranked.sort(Comparator.comparingLong((Timing t) -> t.totalNanos).reversed());
+        return ranked.subList(0, Math.min(Math.max(top, 0), ranked.size()));
+    }
+
+    /**
+     * Appends one line of statistics to a report.
+     *
+     * @param sb     The report.
+     * @param timing The statistics to append.
+     */
+    private static void appendLine(StringBuilder sb, Timing timing) {
+        String name = timing.name.length() > 38 ? timing.name.substring(0, 35) + "..." : timing.name;
+        sb.append(String.format("  %-38s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %12.1f%n",
+                name,
+                timing.count,
+                timing.totalNanos / 1e6,
+                timing.totalNanos / 1e3 / timing.count,
+                timing.percentileNanos(50) / 1e3,
+                timing.percentileNanos(99) / 1e3,
+                timing.maxNanos / 1e3,
+                timing.totalBytes / 1024.0));
+    }
+}
@@ -0,0 +1,333 @@
+package solution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * An on-disk cache of story results. Attach it with StoryTesterImpl.setResultCache.
+ * Each entry is keyed by a SHA-256 hash of the story text and of the bytecode of every class the story can reach
+ * structurally: the test class, its enclosing classes, its superclasses and, for nested-class runs, all of its
+ * nested classes and their superclasses. The bytecode of the story tester itself is part of every key, so entries
+ * written by an older tester are never replayed. Changing any of these classes yields a new key, and the stale
+ * entry ages out of the cache. Classes a step method only uses at run time are not part of the key.
+ * <p>
+ * A hit replays the stored outcome: it returns for a passing story, or throws a StoryTestExceptionImpl with the
+ * stored details for a failing one. The cache holds at most a fixed number of entries. Once it is full, it evicts
+ * the least recently used tenth of them, so the directory is only listed once every many stores.
+ * Entries are written atomically, and an unreadable entry is treated as a miss, so several processes can share
+ * one directory; each counts only its own stores, so a shared directory may briefly exceed the limit.
+ */
+public class StoryResultCache {
+
+    private static final String SUFFIX = ".result";
+    // Bytecode hash of each class, computed once per loaded class. A ClassValue keeps no class alive.
+    private static final ClassValue<byte[]> classDigests = new ClassValue<>() {
+        @Override
+        protected byte[] computeValue(Class<?> c) {
+            String resource = "/" + c.getName().replace('.', '/') + ".class";
+            try (InputStream in = c.getResourceAsStream(resource)) {
+                return in == null ? null : sha256().digest(in.readAllBytes());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    };
+
+    private final Path directory; // Where the entries are stored.
+    private final int maxEntries; // Number of entries kept before the least recently used are evicted.
+    private int entries = -1; // Number of entries as of the last listing plus those stored since, or -1 if unknown.
+
+    /**
+     * Creates a cache stored in the given directory, creating the directory if needed.
+     *
+     * @param directory  The directory to store entries in.
+     * @param maxEntries The number of entries to keep.
+     * @throws IOException If the directory cannot be created.
+     */
+    public StoryResultCache(Path directory, int maxEntries) throws IOException {
+        if (directory == null || maxEntries <= 0) throw new IllegalArgumentException();
+        this.directory = Files.createDirectories(directory);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     *
+     * @return The digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM supports SHA-256.
+        }
+    }
+
+    /**
+     * Hashes a story given as a string.
+     *
+     * @param story The story.
+     * @return The hash of the story's UTF-8 text.
+     */
+    static byte[] digest(String story) {
+        return sha256().digest(story.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hashes a story stored in a file, reading it in chunks.
+     *
+     * @param story The file holding the story.
+     * @return The hash of the file's contents.
+     * @throws IOException If the file cannot be read.
+     */
+    static byte[] digest(Path story) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(story), digest)) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // The digest is updated as the stream is read.
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Hashes the bytecode of a class.
+     *
+     * @param c The class.
+     * @return The hash, or null if the class file cannot be found.
+     */
+    private static byte[] classDigest(Class<?> c) {
+        return classDigests.get(c);
+    }
+
+    /**
+     * Collects a class, its enclosing classes and its superclasses, skipping the JDK's own classes.
+     *
+     * @param c       The class.
+     * @param closure The set to add to.
+     */
+    private static void addStructure(Class<?> c, Set<Class<?>> closure) {
+        for (Class<?> e = c; e != null; e = e.getEnclosingClass()) {
+            for (Class<?> s = e; s != null && s.getClassLoader() != null; s = s.getSuperclass()) {
+                closure.add(s);
+            }
+        }
+    }
+
+    /**
+     * Collects the nested classes of a class, recursively, with their structure.
+     *
+     * @param c       The class.
+     * @param closure The set to add to.
+     */
+    private static void addNested(Class<?> c, Set<Class<?>> closure) {
+        for (Class<?> nestedClass : c.getDeclaredClasses()) {
+            addStructure(nestedClass, closure);
+            addNested(nestedClass, closure);
+        }
+    }
+
+    /**
+     * Computes the key of a story run.
+     *
+     * @param mode        The entry point and the options that affect the outcome.
+     * @param storyDigest The hash of the story.
+     * @param testClass   The class the story runs against.
+     * @param nested      Whether the story runs against the nested classes of testClass.
+     * @return The key, or null if the bytecode of a class in the closure cannot be found.
+     */
+    String keyFor(String mode, byte[] storyDigest, Class<?> testClass, boolean nested) {
+        Set<Class<?>> closure = new LinkedHashSet<>();
+        closure.add(StoryTesterImpl.class);
+        closure.add(StepBinding.class);
+        closure.add(StepIndex.class);
+        addStructure(testClass, closure);
+        if (nested) addNested(testClass, closure);
+
+        MessageDigest digest = sha256();
+        digest.update(mode.getBytes(StandardCharsets.UTF_8));
+        digest.update(storyDigest);
+        for (Class<?> c : closure) {
+            byte[] classDigest = classDigest(c);
+            if (classDigest == null) return null;
+            digest.update(c.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(classDigest);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     * Replays the stored outcome of a story run, if there is one.
+     *
+     * @param key The key of the run.
+     * A corrupted entry is deleted and counts as not stored.
+     *
+     * @param key The key of the run.
+     * @return True if the run is stored and passed, false if it is not stored.
+     * @throws StoryTestExceptionImpl If the run is stored and failed.
+     */
+    boolean replay(String key) throws StoryTestExceptionImpl {
+        Path entry = directory.resolve(key + SUFFIX);
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(entry, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            return discard(entry); // A malformed escape sequence.
+        }
+
+        String numFails = properties.getProperty("numFails");
+        if (numFails == null) return discard(entry);
+        try {
+            if (Integer.parseInt(numFails) == 0) return true;
+            throw new StoryTestExceptionImpl(Integer.parseInt(numFails), properties.getProperty("sentence"),
+                    properties.getProperty("expected"), properties.getProperty("result"));
+        } catch (NumberFormatException e) {
+            return discard(entry);
+        }
+    }
+
+    /**
+     * Deletes a corrupted entry, so it is not read again.
+     *
+     * @param entry The entry.
+     * @return False, so a lookup of the entry can return it as a miss.
+     */
+    private static boolean discard(Path entry) {
+        try {
+            Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            // Another process may still replace it with a valid entry.
+        }
+        return false;
+    }
+
+    /**
+     * Stores the outcome of a story run, then evicts the least recently used entries if the cache is full.
+     * Failing to write the entry only means the run is not cached.
+     *
+     * @param key     The key of the run.
+     * @param failure The exception the run threw, or null if it passed.
+     */
+    void record(String key, StoryTestExceptionImpl failure) {
+        Properties properties = new Properties();
+        properties.setProperty("numFails", Integer.toString(failure == null ? 0 : failure.getNumFail()));
+        if (failure != null) {
+            if (failure.getSentance() != null) properties.setProperty("sentence", failure.getSentance());
+            if (failure.getStoryExpected() != null) properties.setProperty("expected", failure.getStoryExpected());
+            if (failure.getTestResult() != null) properties.setProperty("result", failure.getTestResult());
+        }
+
+        try {
+            Path entry = directory.resolve(key + SUFFIX);
+            boolean added = Files.notExists(entry);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            boolean moved = false;
+            try {
+                try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    properties.store(writer, null);
+                }
+                try {
+                    Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+                }
+                moved = true;
+            } finally {
+                if (!moved) Files.deleteIfExists(temp);
+            }
+
+            if (entries < 0) entries = listEntries().size();
+            else if (added) entries++;
+            if (entries > maxEntries) evict(entry);
+        } catch (IOException e) {
+            // The run is simply not cached.
+        }
+    }
+
+    /**
+     * Lists the entries in the cache.
+     *
+     * @return The entries.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private List<Path> listEntries() throws IOException {
+        List<Path> list = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(list::add);
+        }
+        return list;
+    }
+
+    /**
+     * Deletes the least recently used entries until at most nine tenths of maxEntries remain, and at least one less,
+     * so the cache fills up again only after many stores.
+     *
+     * @param stored The entry just stored, which is always kept.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private void evict(Path stored) throws IOException {
+        List<Path> list = listEntries();
+        int keep = Math.max(maxEntries - Math.max(maxEntries / 10, 1), 1);
+        entries = list.size();
+        if (entries <= maxEntries) return;
+
+        list.remove(stored);
+        list.sort(Comparator.comparing(StoryResultCache::lastUsed));
+        for (Path entry : list.subList(0, entries - keep)) {
+            Files.deleteIfExists(entry);
+        }
+        entries = keep;
+    }
+
+    /**
+     * Returns when an entry was last written or replayed.
+     *
+     * @param entry The entry.
+     * @return The time, or the epoch if the entry is gone.
+     */
+    private static FileTime lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Deletes every entry in the cache.
+     *
+     * @throws IOException If an entry cannot be deleted.
+     */
+    public void clear() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : stream) Files.deleteIfExists(entry);
+        }
+        entries = 0;
+    }
+}
@@ -3,11 +3,26 @@ package solution;
 import org.junit.ComparisonFailure;
 import provided.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.annotation.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 /**
  * Implementation of the StoryTester interface for testing stories based on given, when, and then annotations.
@@ -15,11 +30,193 @@ import java.lang.reflect.Method;
  */
 public class StoryTesterImpl implements StoryTester {
 
+    // Per test class: the step methods of its inheritance tree, bound once and indexed by annotation name.
+    // A ClassValue keeps no test class, nor its class loader, alive.
+    private static final ClassValue<Map<String, StepIndex>> stepBindings = new ClassValue<>() {
+        @Override
+        protected Map<String, StepIndex> computeValue(Class<?> testClass) {
+            return bindSteps(testClass);
+        }
+    };
+    // Per top-level test class: the Given steps of its nested classes, in the order searchNestedGiven visits them.
+    // A ClassValue keeps no test class, nor its class loader, alive.
+    private static final ClassValue<NestedGivenIndex> nestedGivenIndex = new ClassValue<>() {
+        @Override
+        protected NestedGivenIndex computeValue(Class<?> testClass) {
+            return new NestedGivenIndex(testClass);
+        }
+    };
+
     private Object objectBackup; // Backup of the current object state for restoration during tests.
     String firstFailedSentence; // The first sentence in the story that failed the test.
     String expected; // Expected outcome for the failing test.
     String result; // Actual outcome for the failing test.
     int numFails; // Number of failed test sentences.
+    private boolean incrementalBackup; // Whether backup/restore only touch fields the When steps changed.
+    private Object backupSource; // The instance objectBackup was taken from (incremental mode).
+    private Object[] backupOrigins; // Field values of backupSource when objectBackup was taken (incremental mode).
+    private boolean[] backupCopied; // Whether each backed-up field holds a copy rather than the original (incremental mode).
+    private int maxFailures; // Number of failed sentences after which a story stops running, or 0 for no limit.
+    private Duration timeBudget; // Wall-clock time a story may run before it is stopped, or null for no limit.
+    private StoryProfiler profiler; // Collects timings of story runs, or null when profiling is off.
+    private StoryResultCache resultCache; // Stores outcomes of story runs, or null when caching is off.
+
+    /**
+     * A story run that may be answered from the result cache instead.
+     */
+    private interface StoryRun {
+        void run() throws Exception;
+    }
+
+    /**
+     * Enables or disables incremental backup and restore. When enabled, a When block only re-copies the fields
+     * that may have changed since the previous backup, and a failed Then only restores those fields.
+     * A field counts as unchanged only if its reference was not replaced and its value was not copied (it is assigned
+     * directly, as in a full backup), is of an immutable type (String, a boxed primitive or an enum), or is a JDK
+     * collection or map holding the very same elements, in the same order, as its backup copy.
+     * Every other copied field is always re-copied and restored, so results match the full backup and restore.
+     *
+     * @param incrementalBackup True to enable incremental backup and restore, false for full backup and restore.
+     */
+    public void setIncrementalBackup(boolean incrementalBackup) {
+        this.incrementalBackup = incrementalBackup;
+        this.backupSource = null;
+    }
+
+    /**
+     * Sets the number of failed sentences after which a story stops running. The story is then reported
+     * with the failures found so far, as if it had ended there.
+     *
+     * @param maxFailures The number of failures to stop after, or 0 to run the whole story.
+     */
+    public void setMaxFailures(int maxFailures) {
+        if (maxFailures < 0) throw new IllegalArgumentException();
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * Sets the wall-clock time a story may run. A story that runs out of time stops after the current sentence.
+     * If sentences have failed, it is reported with a StoryTestExceptionImpl as usual, covering the failures
+     * found so far. If none have, every entry point throws a java.util.concurrent.TimeoutException instead,
+     * so an unfinished story is never reported as passing.
+     *
+     * @param timeBudget The time a story may run, or null for no limit.
+     */
+    public void setTimeBudget(Duration timeBudget) {
+        if (timeBudget != null && timeBudget.isNegative()) throw new IllegalArgumentException();
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Attaches a profiler that times every phase of the following story runs and records them as JFR events.
+     *
+     * @param profiler The profiler to attach, or null to stop profiling.
+     */
+    public void setProfiler(StoryProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Attaches a result cache. Runs of a String or Path story whose story and classes are unchanged since a cached
+     * run then replay that run's outcome without running. Runs with a time budget are never cached, since their
+     * outcome depends on timing, and Reader stories are never cached, since they cannot be hashed and then re-read.
+     *
+     * @param resultCache The cache to attach, or null to stop caching.
+     */
+    public void setResultCache(StoryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Runs a story, or replays its outcome from the result cache if it is cached.
+     *
+     * @param storyDigest The hash of the story, or null if it cannot be cached.
+     * @param testClass   The class the story runs against.
+     * @param nested      Whether the story runs against the nested classes of testClass.
+     * @param run         Runs the story.
+     * @throws Exception If an error occurs during testing.
+     */
+    private void runCached(byte[] storyDigest, Class<?> testClass, boolean nested, StoryRun run) throws Exception {
+        String mode = (nested ? "nested" : "inheritance") + " maxFailures=" + maxFailures
+                + " incrementalBackup=" + incrementalBackup;
+        String key = storyDigest == null || resultCache == null || timeBudget != null
+                ? null : resultCache.keyFor(mode, storyDigest, testClass, nested);
+        if (key == null) {
+            run.run();
+            return;
+        }
+        try {
+            if (resultCache.replay(key)) {
+                this.numFails = 0;
+                return;
+            }
+        } catch (StoryTestExceptionImpl e) {
+            // Leave the tester in the same state a fresh run would.
+            this.numFails = e.getNumFail();
+            this.firstFailedSentence = e.getSentance();
+            this.expected = e.getStoryExpected();
+            this.result = e.getTestResult();
+            throw e;
+        }
+
+        try {
+            run.run();
+        } catch (StoryTestExceptionImpl e) {
+            resultCache.record(key, e);
+            throw e;
+        }
+        resultCache.record(key, null);
+    }
+
+    /**
+     * Hashes a story for the result cache.
+     *
+     * @param story The story.
+     * @return The hash, or null if no cache is attached.
+     */
+    private byte[] digestForCache(String story) {
+        return resultCache == null ? null : StoryResultCache.digest(story);
+    }
+
+    /**
+     * Hashes a story file for the result cache.
+     *
+     * @param story The file holding the story.
+     * @return The hash, or null if no cache is attached.
+     * @throws IOException If the file cannot be read.
+     */
+    private byte[] digestForCache(Path story) throws IOException {
+        return resultCache == null ? null : StoryResultCache.digest(story);
+    }
+
+    /**
+     * Starts timing a phase, if a profiler is attached.
+     *
+     * @param phase The phase that starts.
+     */
+    private void beginPhase(StoryProfiler.Phase phase) {
+        if (profiler != null) profiler.begin(phase);
+    }
+
+    /**
+     * Finishes timing the current phase, if a profiler is attached.
+     *
+     * @param testClass The test class the story runs against.
+     * @param sentence  The sentence being run, or null for phases outside a sentence.
+     * @param step      The step the sentence resolved to, or null if there is none.
+     */
+    private void endPhase(Class<?> testClass, String sentence, StepBinding step) {
+        if (profiler != null) profiler.end(testClass, sentence, step == null ? null : step.getValue());
+    }
+
+    /**
+     * Finishes timing the current sentence, if a profiler is attached.
+     *
+     * @param testClass The test class the story runs against.
+     */
+    private void endSentence(Class<?> testClass) {
+        if (profiler != null) profiler.endSentence(testClass);
+    }
 
     /**
      * Creates and returns a new instance of the specified test class.
@@ -60,6 +257,33 @@ public class StoryTesterImpl implements StoryTester {
         }
     }
 
+    /**
+     * Returns a copy of a field value, using clone or a copy constructor when available.
+     *
+     * @param fieldValue The field value to copy.
+     * @return A copy of the value, or the value itself if it cannot be copied.
+     * @throws Exception If copying fails.
+     */
+    private Object copyFieldValue(Object fieldValue) throws Exception {
+        if (fieldValue == null) return null;
+
+        Class<?> fieldClass = fieldValue.getClass();
+
+        if (fieldValue instanceof Cloneable) {
+            // Handle cloneable fields.
+            Method cloner = fieldClass.getDeclaredMethod("clone");
+            cloner.setAccessible(true);
+            return cloner.invoke(fieldValue);
+        } else if (copyConstructorExists(fieldClass)) {
+            // Handle fields with copy constructors.
+            Constructor<?> cpyConstructor = fieldClass.getDeclaredConstructor(fieldClass);
+            cpyConstructor.setAccessible(true);
+            return cpyConstructor.newInstance(fieldValue);
+        }
+        // Handle other types by direct assignment.
+        return fieldValue;
+    }
+
     /**
      * Creates a backup of the given object's state and stores it in objectBackup.
      *
@@ -67,37 +291,127 @@ public class StoryTesterImpl implements StoryTester {
      * @throws Exception If backup fails.
      */
     private void backUpInstance(Object obj) throws Exception {
+        if (incrementalBackup) {
+            backUpInstanceIncremental(obj);
+            return;
+        }
+
         Object backup = createTestInstance(obj.getClass());
         Field[] fieldsArr = obj.getClass().getDeclaredFields();
 
         for (Field field : fieldsArr) {
             field.setAccessible(true); // Make private fields accessible.
-            Object fieldValue = field.get(obj);
+            field.set(backup, copyFieldValue(field.get(obj)));
+        }
 
-            if (fieldValue == null) {
-                field.set(backup, null);
-                continue;
-            }
+        this.objectBackup = backup;
+    }
+
+    /**
+     * Checks whether a field still matches its backup, given that its reference was not replaced.
+     * A copied value may have been mutated in place, so it only matches if its type is immutable
+     * or if it is a JDK collection whose contents are still those of the copy.
+     *
+     * @param fieldValue  The current value of the field.
+     * @param copied      Whether the backed-up value is a copy of the original.
+     * @param backupValue The backed-up value of the field.
+     * @return True if the field does not need to be copied or restored again, false otherwise.
+     */
+    private static boolean matchesBackup(Object fieldValue, boolean copied, Object backupValue) {
+        return !copied || isImmutable(fieldValue) || sameElements(fieldValue, backupValue);
+    }
+
+    /**
+     * Checks whether a JDK collection or map holds the same elements as its copy, compared by reference and in
+     * iteration order. Since a copy made by clone or a copy constructor is shallow, such a collection is in the
+     * state its copy would restore. Collections of other classes may hold state beyond their elements, so they
+     * never match. Two maps with the same entries may iterate them in different orders; they then do not match,
+     * which only costs a copy.
+     *
+     * @param value The current value of a field.
+     * @param copy  The copy of the value made at the last backup.
+     * @return True if both hold the same elements, false otherwise.
+     */
+    private static boolean sameElements(Object value, Object copy) {
+        if (copy == null || value.getClass() != copy.getClass() || value.getClass().getClassLoader() != null) {
+            return false;
+        }
 
-            Class<?> fieldClass = fieldValue.getClass();
-
-            if (fieldValue instanceof Cloneable) {
-                // Handle cloneable fields.
-                Method cloner = fieldClass.getDeclaredMethod("clone");
-                cloner.setAccessible(true);
-                field.set(backup, cloner.invoke(fieldValue));
-            } else if (copyConstructorExists(fieldClass)) {
-                // Handle fields with copy constructors.
-                Constructor<?> cpyConstructor = fieldClass.getDeclaredConstructor(fieldClass);
-                cpyConstructor.setAccessible(true);
-                field.set(backup, cpyConstructor.newInstance(fieldValue));
-            } else {
-                // Handle other types by direct assignment.
-                field.set(backup, fieldValue);
+        Iterator<?> current;
+        Iterator<?> backedUp;
+        if (value instanceof Collection) {
+            if (((Collection<?>) value).size() != ((Collection<?>) copy).size()) return false;
+            current = ((Collection<?>) value).iterator();
+            backedUp = ((Collection<?>) copy).iterator();
+        } else if (value instanceof Map) {
+            if (((Map<?, ?>) value).size() != ((Map<?, ?>) copy).size()) return false;
+            current = ((Map<?, ?>) value).entrySet().iterator();
+            backedUp = ((Map<?, ?>) copy).entrySet().iterator();
+        } else {
+            return false;
+        }
+
+        while (current.hasNext() && backedUp.hasNext()) {
+            Object element = current.next();
+            Object backedUpElement = backedUp.next();
+            if (element instanceof Map.Entry) {
+                // Compare the key and the value, not entry objects, which are distinct in every map.
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                Map.Entry<?, ?> backedUpEntry = (Map.Entry<?, ?>) backedUpElement;
+                if (entry.getKey() != backedUpEntry.getKey() || entry.getValue() != backedUpEntry.getValue()) {
+                    return false;
+                }
+            } else if (element != backedUpElement) {
+                return false;
             }
         }
+        return !current.hasNext() && !backedUp.hasNext();
+    }
 
-        this.objectBackup = backup;
+    /**
+     * Checks whether a value is of a type known to be immutable.
+     *
+     * @param value The value to check.
+     * @return True if the value is a String, a boxed primitive or an enum, false otherwise.
+     */
+    private static boolean isImmutable(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte || value instanceof Double
+                || value instanceof Float || value instanceof Boolean || value instanceof Character
+                || value instanceof Enum;
+    }
+
+    /**
+     * Backs up the given object, re-copying only the fields that changed since the previous backup of it.
+     *
+     * @param obj The object to back up.
+     * @throws Exception If backup fails.
+     */
+    private void backUpInstanceIncremental(Object obj) throws Exception {
+        Field[] fieldsArr = obj.getClass().getDeclaredFields();
+        boolean reuse = backupSource == obj && objectBackup != null;
+
+        if (!reuse) {
+            this.objectBackup = createTestInstance(obj.getClass());
+            this.backupOrigins = new Object[fieldsArr.length];
+            this.backupCopied = new boolean[fieldsArr.length];
+        }
+
+        for (int i = 0; i < fieldsArr.length; i++) {
+            Field field = fieldsArr[i];
+            field.setAccessible(true); // Make private fields accessible.
+            Object fieldValue = field.get(obj);
+
+            if (reuse && fieldValue == backupOrigins[i]
+                    && matchesBackup(fieldValue, backupCopied[i], field.get(objectBackup))) continue;
+
+            Object copy = copyFieldValue(fieldValue);
+            field.set(objectBackup, copy);
+            backupOrigins[i] = fieldValue;
+            backupCopied[i] = copy != fieldValue;
+        }
+
+        this.backupSource = obj;
     }
 
     /**
@@ -128,9 +442,18 @@ public class StoryTesterImpl implements StoryTester {
     private void restoreInstance(Object obj) throws Exception {
         Field[] fieldsArr = obj.getClass().getDeclaredFields();
 
-        for (Field field : fieldsArr) {
+        for (int i = 0; i < fieldsArr.length; i++) {
+            Field field = fieldsArr[i];
             field.setAccessible(true); // Make private fields accessible.
-            field.set(obj, field.get(objectBackup));
+            Object backupValue = field.get(objectBackup);
+
+            if (incrementalBackup) {
+                // Skip fields the When steps left untouched.
+                Object fieldValue = field.get(obj);
+                if (fieldValue == backupOrigins[i]
+                        && matchesBackup(fieldValue, backupCopied[i], backupValue)) continue;
+            }
+            field.set(obj, backupValue);
         }
     }
 
@@ -150,28 +473,84 @@ public class StoryTesterImpl implements StoryTester {
 
     /**
      * Tests a story against the inheritance tree of the given class.
+     * The story is split on '\n' only and, unlike the Reader and Path overloads, lines are used as they are:
+     * a blank line throws an exception, and a trailing '\r' stays part of the sentence's last word.
      *
      * @param story     The story to test.
      * @param testClass The class to test against.
      * @throws Exception If an error occurs during testing.
+     * @throws TimeoutException If a time budget is set and runs out before any sentence fails.
      */
     @Override
     public void testOnInheritanceTree(String story, Class<?> testClass) throws Exception {
         if ((story == null) || testClass == null) throw new IllegalArgumentException();
 
+        runCached(digestForCache(story), testClass, false,
+                () -> runStory(Arrays.asList(story.split("\n")).iterator(), testClass));
+    }
+
+    /**
+     * Tests a story read from a reader against the inheritance tree of the given class.
+     * Sentences are read one line at a time, so memory use does not depend on the story's length.
+     * Lines may end in '\n', '\r' or "\r\n", and blank lines are skipped.
+     *
+     * @param story     The reader to read the story from. It is not closed.
+     * @param testClass The class to test against.
+     * @throws Exception If an error occurs during testing.
+     * @throws TimeoutException If a time budget is set and runs out before any sentence fails.
+     */
+    public void testOnInheritanceTree(Reader story, Class<?> testClass) throws Exception {
+        if ((story == null) || testClass == null) throw new IllegalArgumentException();
+
+        runStory(sentences(toBufferedReader(story)).iterator(), testClass);
+    }
+
+    /**
+     * Tests a story stored in a UTF-8 file against the inheritance tree of the given class.
+     *
+     * @param story     The file to read the story from.
+     * @param testClass The class to test against.
+     * @throws Exception If an error occurs during testing.
+     * @throws TimeoutException If a time budget is set and runs out before any sentence fails.
+     */
+    public void testOnInheritanceTree(Path story, Class<?> testClass) throws Exception {
+        if ((story == null) || testClass == null) throw new IllegalArgumentException();
+
+        runCached(digestForCache(story), testClass, false, () -> {
+            try (BufferedReader reader = Files.newBufferedReader(story)) {
+                testOnInheritanceTree(reader, testClass);
+            }
+        });
+    }
+
+    /**
+     * Runs the sentences of a story against the inheritance tree of the given class.
+     *
+     * @param sentences The sentences of the story, in order.
+     * @param testClass The class to test against.
+     * @throws Exception If an error occurs during testing.
+     */
+    private void runStory(Iterator<String> sentences, Class<?> testClass) throws Exception {
         int whenCount = 0;
         this.numFails = 0;
+        this.backupSource = null;
+        long deadline = timeBudget == null ? 0 : System.nanoTime() + timeBudget.toNanos();
+        beginPhase(StoryProfiler.Phase.CREATE_INSTANCE);
         Object testInstance = createTestInstance(testClass);
+        endPhase(testClass, null, null);
 
-        for (String sentence : story.split("\n")) {
+        while (sentences.hasNext()) {
+            String sentence = sentences.next();
             String[] words = sentence.split(" ", 2);
 
             String annotationName = words[0];
-            String sentenceSub = words[1].substring(0, words[1].lastIndexOf(' '));
-            String parameter = sentence.substring(sentence.lastIndexOf(' ') + 1);
 
-            Method method = searchInheritance(testClass, annotationName, sentenceSub);
-            if (method == null) {
+            beginPhase(StoryProfiler.Phase.LOOKUP);
+            StepBinding step = findStep(testClass, annotationName, words[1]);
+            Object[] args = step == null ? null : step.arguments(words[1]);
+            endPhase(testClass, sentence, step);
+            if (step == null) {
+                endSentence(testClass);
                 throw switch (annotationName) {
                     case "Given" -> new GivenNotFoundException();
                     case "When" -> new WhenNotFoundException();
@@ -181,16 +560,19 @@ public class StoryTesterImpl implements StoryTester {
 
             try {
                 if (annotationName.equals("When")) {
-                    if (whenCount == 0) backUpInstance(testInstance);
+                    if (whenCount == 0) {
+                        beginPhase(StoryProfiler.Phase.BACKUP);
+                        backUpInstance(testInstance);
+                        endPhase(testClass, sentence, step);
+                    }
                     whenCount++;
                 } else whenCount = 0;
 
-                method.setAccessible(true);
-
-                if (method.getParameterTypes()[0] == Integer.class || method.getParameterTypes()[0] == int.class) {
-                    method.invoke(testInstance, Integer.parseInt(parameter));
-                } else {
-                    method.invoke(testInstance, parameter);
+                beginPhase(StoryProfiler.Phase.STEP);
+                try {
+                    step.getMethod().invoke(testInstance, args);
+                } finally {
+                    endPhase(testClass, sentence, step);
                 }
             } catch (InvocationTargetException e) {
                 if (!(e.getTargetException() instanceof ComparisonFailure)) throw e;
@@ -200,7 +582,19 @@ public class StoryTesterImpl implements StoryTester {
                     this.firstFailedSentence = sentence;
                 }
                 this.numFails++;
-                if (annotationName.equals("Then")) restoreInstance(testInstance);
+                if (annotationName.equals("Then")) {
+                    beginPhase(StoryProfiler.Phase.RESTORE);
+                    restoreInstance(testInstance);
+                    endPhase(testClass, sentence, step);
+                }
+            } finally {
+                endSentence(testClass);
+            }
+
+            if (maxFailures > 0 && this.numFails >= maxFailures) break;
+            if (timeBudget != null && System.nanoTime() - deadline >= 0 && sentences.hasNext()) {
+                if (this.numFails == 0) throw new TimeoutException("Story exceeded its time budget of " + timeBudget);
+                break;
             }
         }
 
@@ -211,10 +605,13 @@ public class StoryTesterImpl implements StoryTester {
 
     /**
      * Tests a story against nested classes in the given class.
+     * The story is split on '\n' only and, unlike the Reader and Path overloads, lines are used as they are:
+     * a blank line throws an exception, and a trailing '\r' stays part of the sentence's last word.
      *
      * @param story     The story to test.
      * @param testClass The class containing nested classes to test.
      * @throws Exception If an error occurs during testing.
+     * @throws TimeoutException If a time budget is set and runs out before any sentence fails.
      */
     @Override
     public void testOnNestedClasses(String story, Class<?> testClass) throws Exception {
@@ -222,13 +619,91 @@ public class StoryTesterImpl implements StoryTester {
             throw new IllegalArgumentException();
         }
 
-        String[] givenAndRest = story.split("\n", 2);
-        String aGivenSentence = givenAndRest[0].substring(givenAndRest[0].indexOf(' ') + 1, givenAndRest[0].lastIndexOf(' '));
+        runCached(digestForCache(story), testClass, true, () -> {
+            String[] givenAndRest = story.split("\n", 2);
+            Class<?> declaresGiven = findNestedGiven(givenAndRest[0], testClass);
+            runStory(Arrays.asList(story.split("\n")).iterator(), declaresGiven);
+        });
+    }
+
+    /**
+     * Tests a story read from a reader against nested classes in the given class.
+     * Sentences are read one line at a time, so memory use does not depend on the story's length.
+     * Lines may end in '\n', '\r' or "\r\n", and blank lines are skipped.
+     *
+     * @param story     The reader to read the story from. It is not closed.
+     * @param testClass The class containing nested classes to test.
+     * @throws Exception If an error occurs during testing.
+     * @throws TimeoutException If a time budget is set and runs out before any sentence fails.
+     */
+    public void testOnNestedClasses(Reader story, Class<?> testClass) throws Exception {
+        if (testClass == null || story == null) {
+            throw new IllegalArgumentException();
+        }
+
+        BufferedReader reader = toBufferedReader(story);
+        String firstSentence = reader.readLine();
+        while (firstSentence != null && firstSentence.isEmpty()) firstSentence = reader.readLine();
+        if (firstSentence == null) throw new GivenNotFoundException();
 
-        Class<?> declaresGiven = searchNestedGiven(aGivenSentence, testClass);
+        Class<?> declaresGiven = findNestedGiven(firstSentence, testClass);
+        runStory(Stream.concat(Stream.of(firstSentence), sentences(reader)).iterator(), declaresGiven);
+    }
+
+    /**
+     * Tests a story stored in a UTF-8 file against nested classes in the given class.
+     *
+     * @param story     The file to read the story from.
+     * @param testClass The class containing nested classes to test.
+     * @throws Exception If an error occurs during testing.
+     * @throws TimeoutException If a time budget is set and runs out before any sentence fails.
+     */
+    public void testOnNestedClasses(Path story, Class<?> testClass) throws Exception {
+        if (testClass == null || story == null) {
+            throw new IllegalArgumentException();
+        }
+
+        runCached(digestForCache(story), testClass, true, () -> {
+            try (BufferedReader reader = Files.newBufferedReader(story)) {
+                testOnNestedClasses(reader, testClass);
+            }
+        });
+    }
+
+    /**
+     * Finds the nested class declaring the "Given" method of a story's first sentence.
+     *
+     * @param firstSentence The first sentence of the story.
+     * @param testClass     The class containing nested classes.
+     * @return The class declaring the "Given" method.
+     * @throws GivenNotFoundException If no nested class declares it.
+     */
+    static Class<?> findNestedGiven(String firstSentence, Class<?> testClass) throws GivenNotFoundException {
+        String aGivenSentence = firstSentence.substring(firstSentence.indexOf(' ') + 1);
+
+        Class<?> declaresGiven = nestedGivenIndex.get(testClass).find(aGivenSentence);
         if (declaresGiven == null) throw new GivenNotFoundException();
+        return declaresGiven;
+    }
 
-        testOnInheritanceTree(story, declaresGiven);
+    /**
+     * Wraps a reader in a BufferedReader, unless it already is one.
+     *
+     * @param reader The reader to wrap.
+     * @return A buffered reader over the same characters.
+     */
+    private static BufferedReader toBufferedReader(Reader reader) {
+        return reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Returns the remaining non-blank lines of a reader as a lazily read stream of sentences.
+     *
+     * @param reader The reader to read from.
+     * @return The sentences left in the reader.
+     */
+    private static Stream<String> sentences(BufferedReader reader) {
+        return reader.lines().filter(line -> !line.isEmpty());
     }
 
     /**
@@ -272,4 +747,101 @@ public class StoryTesterImpl implements StoryTester {
         }
         return null;
     }
+
+    /**
+     * Returns the bound step methods of a class, binding them on first use.
+     *
+     * @param testClass The class whose steps to return.
+     * @return The bound step methods, indexed by annotation name, in the order searchInheritance would find them.
+     */
+    static Map<String, StepIndex> bindingsOf(Class<?> testClass) {
+        return stepBindings.get(testClass);
+    }
+
+    /**
+     * Finds the step a sentence resolves to in the inheritance tree of a class.
+     *
+     * @param testClass      The class to search.
+     * @param annotationName The annotation name of the sentence ("Given", "When", "Then").
+     * @param body           The sentence, without its annotation name.
+     * @return The first matching step, in the order searchInheritance would find it, or null if there is none.
+     */
+    static StepBinding findStep(Class<?> testClass, String annotationName, String body) {
+        StepIndex candidates = bindingsOf(testClass).get(annotationName);
+        return candidates == null ? null : candidates.find(body);
+    }
+
+    /**
+     * Binds every Given, When and Then method in the inheritance tree of a class, in the order
+     * searchInheritance would find them.
+     *
+     * @param testClass The class to bind.
+     * @return The bound step methods, indexed by annotation name.
+     */
+    private static Map<String, StepIndex> bindSteps(Class<?> testClass) {
+        Map<String, StepIndex> steps = new HashMap<>();
+        for (String annotationName : new String[]{"Given", "When", "Then"}) {
+            steps.put(annotationName, new StepIndex());
+        }
+
+        for (Class<?> c = testClass; c != null; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                Given given = method.getAnnotation(Given.class);
+                When when = method.getAnnotation(When.class);
+                Then then = method.getAnnotation(Then.class);
+
+                if (given != null) steps.get("Given").add(new StepBinding(method, given.value()));
+                if (when != null) steps.get("When").add(new StepBinding(method, when.value()));
+                if (then != null) steps.get("Then").add(new StepBinding(method, then.value()));
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * An index of the "Given" steps declared in a class, its nested classes and their superclasses.
+     * Classes are visited in the same depth-first order as searchNestedGiven, so a sentence resolves to the
+     * class searchNestedGiven would return for it.
+     */
+    private static final class NestedGivenIndex {
+        private final StepIndex givens = new StepIndex(); // Every indexed Given step, in visiting order.
+        private final List<Class<?>> declaring = new ArrayList<>(); // The visited class each Given step belongs to.
+
+        /**
+         * Builds the index for a class and its nested classes.
+         *
+         * @param testClass The class containing nested classes.
+         */
+        NestedGivenIndex(Class<?> testClass) {
+            add(testClass);
+        }
+
+        /**
+         * Adds the "Given" steps of a class and its nested classes to the index.
+         *
+         * @param testClass The class to index.
+         */
+        private void add(Class<?> testClass) {
+            for (StepBinding given : bindingsOf(testClass).get("Given").getSteps()) {
+                givens.add(given);
+                declaring.add(testClass);
+            }
+
+            for (Class<?> nestedClass : testClass.getDeclaredClasses()) {
+                if (nestedClass.isInterface()) continue;
+                add(nestedClass);
+            }
+        }
+
+        /**
+         * Finds the first indexed class with a "Given" step matching a sentence.
+         *
+         * @param body The sentence, without its Given keyword.
+         * @return The class declaring the matching step, or null if there is none.
+         */
+        Class<?> find(String body) {
+            int position = givens.indexOf(body);
+            return position < 0 ? null : declaring.get(position);
+        }
+    }
 }
@@ -0,0 +1,412 @@
+package solution;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks the hot paths of StoryTesterImpl against generated fixtures, in the style of a JMH run:
+ * each benchmark is warmed up, then measured over several fixed-length iterations, and reports its throughput
+ * and the bytes it allocates per operation. Story runs also report the time spent in each StoryProfiler phase.
+ * <p>
+ * The fixture classes are generated as Java source and compiled at startup, so their shape is configurable:
+ * <ul>
+ *     <li>inheritanceDepth - number of superclasses between the fixture and the class declaring its steps</li>
+ *     <li>nestingDepth - number of inner classes enclosing the fixture used by testOnNestedClasses</li>
+ *     <li>methods - number of non-matching filler steps declared in every class</li>
+ *     <li>fields - number of list fields in each fixture, all backed up before every When block</li>
+ *     <li>storyLength - number of sentences in each generated story</li>
+ *     <li>whenChain - maximum number of When sentences in a row</li>
+ *     <li>failureRate - fraction of Then sentences generated to fail</li>
+ *     <li>warmup, iterations, iterationMillis, seed - run length and reproducibility</li>
+ * </ul>
+ * Run it with the solution classes, the provided classes and JUnit on the class path, passing options as
+ * key=value arguments, for example: {@code java solution.StoryTesterBenchmark inheritanceDepth=8 fields=50}
+ */
+public class StoryTesterBenchmark {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Receives the result of every operation, so the JIT cannot drop work whose result is unused.
+    private static volatile Object sink;
+
+    private final Map<String, String> options = new HashMap<>(); // The key=value options of the run.
+
+    private final int inheritanceDepth;
+    private final int nestingDepth;
+    private final int methods;
+    private final int fields;
+    private final int storyLength;
+    private final int whenChain;
+    private final double failureRate;
+    private final int warmup;
+    private final int iterations;
+    private final long iterationMillis;
+    private final long seed;
+
+    private Class<?> generated; // The generated top-level class, containing every fixture.
+    private Class<?> fixture; // The fixture used by testOnInheritanceTree.
+    private String inheritanceStory; // A generated story for the inheritance fixture.
+    private String nestedStory; // A generated story for the nested fixture.
+
+    /**
+     * An operation to benchmark. Its result is written to the sink.
+     */
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Reads the options of a run, using defaults for missing ones.
+     *
+     * @param args The key=value arguments.
+     */
+    private StoryTesterBenchmark(String[] args) {
+        for (String arg : args) {
+            String[] keyAndValue = arg.split("=", 2);
+            if (keyAndValue.length != 2) throw new IllegalArgumentException("Expected key=value: " + arg);
+            options.put(keyAndValue[0], keyAndValue[1]);
+        }
+        this.inheritanceDepth = intOption("inheritanceDepth", 4);
+        this.nestingDepth = intOption("nestingDepth", 4);
+        this.methods = intOption("methods", 20);
+        this.fields = intOption("fields", 10);
+        this.storyLength = intOption("storyLength", 200);
+        this.whenChain = intOption("whenChain", 4);
+        this.failureRate = Double.parseDouble(options.getOrDefault("failureRate", "0.1"));
+        this.warmup = intOption("warmup", 3);
+        this.iterations = intOption("iterations", 5);
+        this.iterationMillis = intOption("iterationMillis", 1000);
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+    }
+
+    /**
+     * Reads an integer option.
+     *
+     * @param key          The option's name.
+     * @param defaultValue The value to use if the option is missing.
+     * @return The option's value.
+     */
+    private int intOption(String key, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(key, Integer.toString(defaultValue)));
+    }
+
+    /**
+     * Generates the source of the fixture classes. They are all nested in one top-level class:
+     * an abstract chain L0 .. L(inheritanceDepth) whose root declares the real steps, a Leaf fixture extending it,
+     * and inner classes N1 .. N(nestingDepth), the innermost of which is a fixture with its own Given step.
+     *
+     * @param className The name of the top-level class.
+     * @return The source code.
+     */
+    private String generateSource(String className) {
+        StringBuilder src = new StringBuilder();
+        src.append("import solution.*;\n")
+                .append("import java.util.ArrayList;\n")
+                .append("import java.util.List;\n")
+                .append("import org.junit.ComparisonFailure;\n\n")
+                .append("public class ").append(className).append(" {\n");
+
+        src.append("    public abstract static class L0 {\n")
+                .append("        protected abstract List<Integer> field(int i);\n")
+                .append("        @Given(\"a fixture with &n\") public void given(int n) { }\n")
+                .append("        @When(\"field &i grows by &n\") public void grow(int i, int n) {\n")
+                .append("            for (int k = 0; k < n; k++) field(i).add(k);\n")
+                .append("        }\n")
+                .append("        @Then(\"field &i has size &n\") public void size(int i, int n) {\n")
+                .append("            int actual = field(i).size();\n")
+                .append("            if (actual != n) throw new ComparisonFailure(\"\", \"\" + n, \"\" + actual);\n")
+                .append("        }\n");
+        appendFillers(src, 0);
+        src.append("    }\n");
+
+        for (int level = 1; level <= inheritanceDepth; level++) {
+            src.append("    public abstract static class L").append(level).append(" extends L").append(level - 1)
+                    .append(" {\n");
+            appendFillers(src, level);
+            src.append("    }\n");
+        }
+
+        src.append("    public static class Leaf extends L").append(inheritanceDepth).append(" {\n");
+        appendFields(src);
+        src.append("    }\n");
+
+        String indent = "    ";
+        for (int level = 1; level <= nestingDepth; level++) {
+            boolean innermost = level == nestingDepth;
+            src.append(indent).append("public class N").append(level)
+                    .append(innermost ? " extends L" + inheritanceDepth : "").append(" {\n");
+            indent += "    ";
+        }
+        if (nestingDepth > 0) {
+            src.append(indent).append("@Given(\"a nested fixture with &n\") public void nestedGiven(int n) { }\n");
+            appendFields(src);
+            for (int level = nestingDepth; level >= 1; level--) {
+                indent = indent.substring(4);
+                src.append(indent).append("}\n");
+            }
+        }
+
+        return src.append("}\n").toString();
+    }
+
+    /**
+     * Appends filler steps that never match a generated sentence, so lookups have to skip them.
+     *
+     * @param src   The source to append to.
+     * @param level The inheritance level of the class being generated.
+     */
+    private void appendFillers(StringBuilder src, int level) {
+        for (int m = 0; m < methods; m++) {
+            String keyword = m % 3 == 0 ? "Given" : m % 3 == 1 ? "When" : "Then";
+            src.append("        @").append(keyword).append("(\"filler ").append(m).append(" of level ").append(level)
+                    .append(" &n\") public void filler").append(level).append('_').append(m)
+                    .append("(int n) { }\n");
+        }
+    }
+
+    /**
+     * Appends the list fields of a fixture and the accessor the root steps use.
+     *
+     * @param src The source to append to.
+     */
+    private void appendFields(StringBuilder src) {
+        for (int f = 0; f < fields; f++) {
+            src.append("        ArrayList<Integer> f").append(f).append(" = new ArrayList<>();\n");
+        }
+        src.append("        protected List<Integer> field(int i) {\n")
+                .append("            switch (i) {\n");
+        for (int f = 0; f < fields; f++) {
+            src.append("                case ").append(f).append(": return f").append(f).append(";\n");
+        }
+        src.append("                default: throw new IllegalArgumentException();\n")
+                .append("            }\n")
+                .append("        }\n");
+    }
+
+    /**
+     * Generates a story over the fixture's fields. It tracks the sizes the tester will see, including the restore
+     * after a failed Then, so that only the injected failures fail.
+     *
+     * @param givenSentence The first sentence of the story.
+     * @param random        The source of randomness.
+     * @return The story.
+     */
+    private String generateStory(String givenSentence, Random random) {
+        int[] sizes = new int[fields];
+        int[] backup = new int[fields];
+        int whens = 0;
+        boolean backedUp = false; // A failing Then restores the last backup, so it needs one to exist.
+
+        List<String> sentences = new ArrayList<>();
+        sentences.add(givenSentence);
+        while (sentences.size() < storyLength) {
+            int field = random.nextInt(fields);
+            if (whens < whenChain && random.nextBoolean()) {
+                if (whens == 0) System.arraycopy(sizes, 0, backup, 0, fields);
+                backedUp = true;
+                whens++;
+                int n = 1 + random.nextInt(3);
+                sizes[field] += n;
+                sentences.add("When field " + field + " grows by " + n);
+            } else {
+                whens = 0;
+                if (backedUp && random.nextDouble() < failureRate) {
+                    sentences.add("Then field " + field + " has size " + (sizes[field] + 1));
+                    System.arraycopy(backup, 0, sizes, 0, fields);
+                } else {
+                    sentences.add("Then field " + field + " has size " + sizes[field]);
+                }
+            }
+        }
+        return String.join("\n", sentences);
+    }
+
+    /**
+     * Generates and compiles the fixtures, and generates the stories.
+     *
+     * @throws Exception If the fixtures cannot be compiled or loaded.
+     */
+    private void setUp() throws Exception {
+        if (fields <= 0) throw new IllegalArgumentException("fields must be positive");
+
+        String className = "GeneratedFixtures";
+        Path dir = Files.createTempDirectory("story-bench");
+        Path source = dir.resolve(className + ".java");
+        Files.writeString(source, generateSource(className));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) throw new IllegalStateException("The benchmark must run on a JDK");
+        int status = compiler.run(null, null, null,
+                "-classpath", System.getProperty("java.class.path"), "-d", dir.toString(), source.toString());
+        if (status != 0) throw new IllegalStateException("Generated fixtures did not compile");
+
+        ClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, getClass().getClassLoader());
+        this.generated = loader.loadClass(className);
+        this.fixture = loader.loadClass(className + "$Leaf");
+
+        Random random = new Random(seed);
+        this.inheritanceStory = generateStory("Given a fixture with 0", random);
+        this.nestedStory = generateStory("Given a nested fixture with 0", random);
+    }
+
+    /**
+     * Returns the bytes the current thread has allocated so far, or 0 if the JVM cannot tell.
+     *
+     * @return The allocated bytes.
+     */
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs an operation once and writes its result to the sink, ignoring the StoryTestException a failing
+     * story throws.
+     *
+     * @param operation The operation.
+     * @throws Exception If the operation fails in any other way.
+     */
+    private static void runOnce(Operation operation) throws Exception {
+        try {
+            sink = operation.run();
+        } catch (provided.StoryTestException e) {
+            sink = e; // Injected failures are part of the benchmark.
+        }
+    }
+
+    /**
+     * Warms up and measures an operation, then prints its throughput and allocation rate.
+     *
+     * @param name      The benchmark's name.
+     * @param operation The operation.
+     * @throws Exception If the operation fails.
+     */
+    private void measure(String name, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            long end = System.nanoTime() + iterationMillis * 1_000_000;
+            while (System.nanoTime() < end) runOnce(operation);
+        }
+
+        double[] scores = new double[iterations];
+        long ops = 0;
+        long bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long count = 0;
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            long end = start + iterationMillis * 1_000_000;
+            long now;
+            do {
+                runOnce(operation);
+                count++;
+                now = System.nanoTime();
+            } while (now < end);
+            bytes += allocatedBytes() - startBytes;
+            ops += count;
+            scores[i] = count * 1e9 / (now - start);
+        }
+
+        double mean = 0;
+        for (double score : scores) mean += score;
+        mean /= iterations;
+        double variance = 0;
+        for (double score : scores) variance += (score - mean) * (score - mean);
+        double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+
+        System.out.printf("%-32s %5d %14.3f +- %10.3f  ops/s %14.1f  B/op%n",
+                name, iterations, mean, error, (double) bytes / ops);
+    }
+
+    /**
+     * Runs every benchmark and prints the results.
+     *
+     * @throws Exception If a benchmark fails.
+     */
+    private void run() throws Exception {
+        setUp();
+        System.out.println("Options: " + options);
+        System.out.printf("%-32s %5s %29s %21s%n", "Benchmark", "Cnt", "Score", "Alloc");
+
+        // Lookups the tester performs for every sentence. The Then step is declared in the root of the
+        // inheritance chain, after the fillers of every subclass, and has two placeholders, so it is not found
+        // by its prefix: the lookup tries it after ruling out the fillers' prefix.
+        String body = "field 0 has size 3";
+        StepBinding rootThen = StoryTesterImpl.findStep(fixture, "Then", body);
+        measure("stepLookup", () -> StoryTesterImpl.findStep(fixture, "Then", body));
+        measure("StepBinding.arguments", () -> rootThen.arguments(body));
+        if (nestingDepth > 0) {
+            measure("nestedGivenIndex", () -> StoryTesterImpl.findNestedGiven("Given a nested fixture with 0", generated));
+        }
+
+        // The reflective helpers the tester used before steps were bound, kept for comparison.
+        String sentence = "field 0 has size"; // Matches no step under the old prefix rule, so the whole tree is scanned.
+        Class<?> root = fixture;
+        while (root.getSuperclass() != Object.class) root = root.getSuperclass();
+        Method rootStep = root.getDeclaredMethod("size", int.class, int.class);
+
+        measure("searchInheritance", () -> StoryTesterImpl.searchInheritance(fixture, "Then", sentence));
+        measure("hasAnnotation", () -> StoryTesterImpl.hasAnnotation(rootStep, "Then", sentence));
+        measure("searchNestedGiven", () -> StoryTesterImpl.searchNestedGiven("a nested fixture with", generated));
+
+        StoryTesterImpl tester = new StoryTesterImpl();
+        measure("testOnInheritanceTree", () -> {
+            tester.testOnInheritanceTree(inheritanceStory, fixture);
+            return tester;
+        });
+        tester.setIncrementalBackup(true);
+        measure("testOnInheritanceTree:incremental", () -> {
+            tester.testOnInheritanceTree(inheritanceStory, fixture);
+            return tester;
+        });
+        tester.setIncrementalBackup(false);
+        if (nestingDepth > 0) {
+            measure("testOnNestedClasses", () -> {
+                tester.testOnNestedClasses(nestedStory, generated);
+                return tester;
+            });
+        }
+
+        // Per-phase breakdown of the story runs, measured separately so profiling does not skew the scores above.
+        StoryProfiler profiler = new StoryProfiler();
+        tester.setProfiler(profiler);
+        for (int i = 0; i < iterations; i++) {
+            runOnce(() -> {
+                tester.testOnInheritanceTree(inheritanceStory, fixture);
+                return tester;
+            });
+            if (nestingDepth > 0) {
+                runOnce(() -> {
+                    tester.testOnNestedClasses(nestedStory, generated);
+                    return tester;
+                });
+            }
+        }
+        tester.setProfiler(null);
+        System.out.println();
+        System.out.print(profiler.report(10));
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args Options, as key=value arguments.
+     * @throws Exception If a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        new StoryTesterBenchmark(args).run();
+    }
+}